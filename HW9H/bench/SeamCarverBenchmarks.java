@@ -0,0 +1,489 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.awt.image.BufferedImage;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import javax.imageio.ImageIO;
+import javalib.worldimages.*;
+
+// runs the carver's hot paths over synthetic images of 0.25, 1, 12 and 50
+// megapixels and the bundled balloons.png and castle.png, reporting the time per
+// operation together with the bytes it allocates and the garbage collections it
+// causes. Run from the HW9H directory with the same classpath as the carver
+// (bin, tester.jar, javalib.jar) and enough heap for the largest image, e.g.
+//   java -Xmx16g -cp bin:tester.jar:javalib.jar SeamCarverBenchmarks
+//   java -cp ... SeamCarverBenchmarks images=1,castle.png benchmarks=findVerticalSeam
+// the options are images, benchmarks (both comma separated, default everything),
+// warmup and iterations (counts) and time (milliseconds per iteration)
+class SeamCarverBenchmarks {
+  public static void main(String[] args) throws InterruptedException {
+    BenchmarkRunner runner = new BenchmarkRunner(args);
+    // rips, reinserts and searches are loops now, but the legacy color rendering
+    // still recurses once per row and column, which needs far more stack than a
+    // default thread has on the larger images
+    Thread thread = new Thread(null, runner, "benchmarks", 1L << 30);
+    thread.start();
+    thread.join();
+  }
+}
+
+// represents an image to benchmark on: its pixels as packed ARGB values, row by
+// row, and a png file holding the same pixels for the benchmarks that start from a
+// FromFileImage
+class BenchImage {
+  String name;
+  int width;
+  int height;
+  int[] argb;
+  String file;
+
+  BenchImage(String name, int width, int height, int[] argb, String file) {
+    this.name = name;
+    this.width = width;
+    this.height = height;
+    this.argb = argb;
+    this.file = file;
+  }
+
+  // returns the bundled image in the given file
+  static BenchImage bundled(String file) {
+    try {
+      BufferedImage image = ImageIO.read(new File(file));
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+      return new BenchImage(file, width, height, argb, file);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // returns a synthetic 4:3 image of about the given number of megapixels: smooth
+  // gradients broken up by flat blocks and a little noise, so that seams have both
+  // cheap and expensive regions to choose between. The same size always gives the
+  // same pixels
+  static BenchImage synthetic(double megapixels) {
+    int width = (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3));
+    int height = (int) Math.round(width * 3.0 / 4);
+    Random rand = new Random(width);
+    int[] argb = new int[width * height];
+
+    for (int i = 0; i < height; i += 1) {
+      for (int j = 0; j < width; j += 1) {
+        int noise = rand.nextInt(16);
+        int red = j * 255 / width;
+        int green = i * 255 / height;
+        int blue = ((i / 64 + j / 64) % 2) * 160 + noise;
+        argb[i * width + j] = 0xFF000000 | (red << 16) | (green << 8) | blue;
+      }
+    }
+
+    try {
+      File file = File.createTempFile("bench-" + megapixels + "mp-", ".png");
+      file.deleteOnExit();
+      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      image.setRGB(0, 0, width, height, argb, 0, width);
+      ImageIO.write(image, "png", file);
+      return new BenchImage(megapixels + "MP", width, height, argb, file.getPath());
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
+
+// represents one hot path of the carver. setUp prepares everything the path needs
+// from the image once, beforeEach restores whatever the previous run changed, and
+// only run is timed. the carver's classes are auxiliary classes of
+// SeamCarverHorizontal.java, and javac warns about naming them in a field or
+// method signature here however it is suppressed, so state of those classes is
+// held as Objects and named only in method bodies, where the warning is suppressed
+@SuppressWarnings("auxiliaryclass")
+abstract class ABenchmark {
+  String name;
+  Object graph; // a Graph
+
+  ABenchmark(String name) {
+    this.name = name;
+  }
+
+  // builds this benchmark's Graph from the given image
+  void setUp(BenchImage image) {
+    this.graph = new Utils().makeGraph(image.argb, image.width, image.height);
+  }
+
+  // undoes whatever the previous run did to this benchmark's state
+  void beforeEach() {
+  }
+
+  // runs the hot path once and returns its result, so it cannot be optimized away
+  abstract Object run();
+
+  // releases this benchmark's state so the next image has the whole heap
+  void tearDown() {
+    this.graph = null;
+  }
+}
+
+// the energy of every pixel of the image, one APixel.calcEnergy at a time
+@SuppressWarnings("auxiliaryclass")
+class CalcEnergyBenchmark extends ABenchmark {
+  Object pixels; // an APixel[]
+
+  CalcEnergyBenchmark() {
+    super("calcEnergy");
+  }
+
+  void setUp(BenchImage image) {
+    super.setUp(image);
+    this.pixels = new PixelPlane((Graph) this.graph).pixels;
+  }
+
+  Object run() {
+    APixel[] pixels = (APixel[]) this.pixels;
+    double sum = 0;
+    for (int i = 0; i < pixels.length; i += 1) {
+      sum += pixels[i].calcEnergy();
+    }
+    return sum;
+  }
+
+  void tearDown() {
+    super.tearDown();
+    this.pixels = null;
+  }
+}
+
+// a seam search on a freshly changed image, so that every run pays for the pixel
+// plane and the energies just like a search after a rip does
+@SuppressWarnings("auxiliaryclass")
+class FindSeamBenchmark extends ABenchmark {
+  boolean direction; // false represents vertical, true represents horizontal
+
+  FindSeamBenchmark(boolean direction) {
+    super(direction ? "findHorizontalSeam" : "findVerticalSeam");
+    this.direction = direction;
+  }
+
+  void beforeEach() {
+    Graph graph = (Graph) this.graph;
+    graph.removed.clear();
+    graph.imageChanged();
+  }
+
+  Object run() {
+    if (this.direction) {
+      return ((Graph) this.graph).findHorizontalSeam();
+    }
+    return ((Graph) this.graph).findVerticalSeam();
+  }
+}
+
+// the removal of one vertical seam, which is put back before the next run so the
+// image keeps its size
+@SuppressWarnings("auxiliaryclass")
+class RipSeamVerticalBenchmark extends ABenchmark {
+  Object seam; // a SeamInfo
+  boolean ripped;
+
+  RipSeamVerticalBenchmark() {
+    super("ripSeamVertical");
+  }
+
+  void beforeEach() {
+    Graph graph = (Graph) this.graph;
+    if (this.ripped) {
+      graph.reinsert();
+    }
+    this.seam = graph.findVerticalSeam();
+    this.ripped = true;
+  }
+
+  Object run() {
+    ((Graph) this.graph).ripSeamVertical((SeamInfo) this.seam);
+    return this.graph;
+  }
+
+  void tearDown() {
+    super.tearDown();
+    this.seam = null;
+    this.ripped = false;
+  }
+}
+
+// the reinsertion of the last removed vertical seam, which is removed again before
+// the next run
+@SuppressWarnings("auxiliaryclass")
+class ReinsertBenchmark extends ABenchmark {
+  ReinsertBenchmark() {
+    super("reinsert");
+  }
+
+  void beforeEach() {
+    Graph graph = (Graph) this.graph;
+    graph.ripSeamVertical(graph.findVerticalSeam());
+  }
+
+  Object run() {
+    ((Graph) this.graph).reinsert();
+    return this.graph;
+  }
+}
+
+// the image drawn into a ComputedPixelImage, in color or as energies
+@SuppressWarnings("auxiliaryclass")
+class RenderBenchmark extends ABenchmark {
+  boolean gray;
+
+  RenderBenchmark(boolean gray) {
+    super(gray ? "renderGray" : "render");
+    this.gray = gray;
+  }
+
+  Object run() {
+    if (this.gray) {
+      return ((Graph) this.graph).renderGray();
+    }
+    return ((Graph) this.graph).render();
+  }
+}
+
+// the highest energy of the image
+@SuppressWarnings("auxiliaryclass")
+class FindMaxEnergyBenchmark extends ABenchmark {
+  FindMaxEnergyBenchmark() {
+    super("findMaxEnergy");
+  }
+
+  Object run() {
+    return ((Graph) this.graph).findMaxEnergy();
+  }
+}
+
+// the grid of APixels read from the image's png file
+@SuppressWarnings("auxiliaryclass")
+class ExtractPixelsBenchmark extends ABenchmark {
+  FromFileImage fileImage;
+  int width;
+  int height;
+
+  ExtractPixelsBenchmark() {
+    super("extractPixels");
+  }
+
+  void setUp(BenchImage image) {
+    this.fileImage = new FromFileImage(image.file);
+    this.width = image.width;
+    this.height = image.height;
+  }
+
+  Object run() {
+    return new Utils().extractPixels(this.fileImage, this.width, this.height);
+  }
+
+  void tearDown() {
+    super.tearDown();
+    this.fileImage = null;
+  }
+}
+
+// the links between the APixels of an extracted grid. Linking is idempotent, so
+// every run relinks the same grid
+@SuppressWarnings("auxiliaryclass")
+class MakeConnectionsBenchmark extends ABenchmark {
+  Object grid; // an ArrayList<ArrayList<APixel>>
+  int width;
+  int height;
+
+  MakeConnectionsBenchmark() {
+    super("makeConnections");
+  }
+
+  void setUp(BenchImage image) {
+    this.grid = new Utils().extractPixels(new FromFileImage(image.file), image.width,
+        image.height);
+    this.width = image.width;
+    this.height = image.height;
+  }
+
+  Object run() {
+    @SuppressWarnings("unchecked")
+    ArrayList<ArrayList<APixel>> grid = (ArrayList<ArrayList<APixel>>) this.grid;
+    return new Utils().makeConnections(grid, this.width, this.height);
+  }
+
+  void tearDown() {
+    super.tearDown();
+    this.grid = null;
+  }
+}
+
+// runs every selected benchmark on every selected image: warmup iterations first,
+// then measured ones, each running the benchmark until the iteration time has
+// passed. Only run is timed, while allocations are counted on this thread around run
+// alone. Collections are counted over the whole measurement, so they also include
+// the garbage of beforeEach
+class BenchmarkRunner implements Runnable {
+  String[] images = { "0.25", "1", "12", "50", "balloons.png", "castle.png" };
+  String[] benchmarks = null; // null runs every benchmark
+  int warmup = 3;
+  int iterations = 5;
+  long iterationNanos = 1000_000_000L;
+  Object sink; // keeps the results of run alive
+
+  BenchmarkRunner(String[] args) {
+    for (String arg : args) {
+      String[] option = arg.split("=", 2);
+      if (option.length != 2) {
+        throw new IllegalArgumentException("options look like name=value, not " + arg);
+      }
+      if (option[0].equals("images")) {
+        this.images = option[1].split(",");
+      }
+      else if (option[0].equals("benchmarks")) {
+        this.benchmarks = option[1].split(",");
+      }
+      else if (option[0].equals("warmup")) {
+        this.warmup = Integer.parseInt(option[1]);
+      }
+      else if (option[0].equals("iterations")) {
+        this.iterations = Integer.parseInt(option[1]);
+      }
+      else if (option[0].equals("time")) {
+        this.iterationNanos = Long.parseLong(option[1]) * 1000_000L;
+      }
+      else {
+        throw new IllegalArgumentException("unknown option " + option[0]);
+      }
+    }
+  }
+
+  // returns every benchmark, in the order they are reported
+  ArrayList<ABenchmark> allBenchmarks() {
+    ArrayList<ABenchmark> all = new ArrayList<ABenchmark>();
+    all.add(new CalcEnergyBenchmark());
+    all.add(new FindSeamBenchmark(false));
+    all.add(new FindSeamBenchmark(true));
+    all.add(new RipSeamVerticalBenchmark());
+    all.add(new ReinsertBenchmark());
+    all.add(new RenderBenchmark(false));
+    all.add(new RenderBenchmark(true));
+    all.add(new FindMaxEnergyBenchmark());
+    all.add(new ExtractPixelsBenchmark());
+    all.add(new MakeConnectionsBenchmark());
+    return all;
+  }
+
+  // returns true if the benchmark with the given name was selected
+  boolean selected(String name) {
+    if (this.benchmarks == null) {
+      return true;
+    }
+    for (String benchmark : this.benchmarks) {
+      if (benchmark.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void run() {
+    System.out.printf("%-20s %-22s %14s %12s %14s %12s %8s %9s%n", "benchmark", "image",
+        "ms/op", "+-", "bytes/op", "MB/s", "gc", "gc ms");
+    for (String spec : this.images) {
+      BenchImage image;
+      if (spec.endsWith(".png")) {
+        image = BenchImage.bundled(spec);
+      }
+      else {
+        image = BenchImage.synthetic(Double.parseDouble(spec));
+      }
+      String label = image.name + " " + image.width + "x" + image.height;
+      for (ABenchmark benchmark : this.allBenchmarks()) {
+        if (this.selected(benchmark.name)) {
+          benchmark.setUp(image);
+          this.measure(benchmark, label);
+          benchmark.tearDown();
+          System.gc();
+        }
+      }
+    }
+  }
+
+  // warms the given benchmark up, then measures it and prints one line of results
+  void measure(ABenchmark benchmark, String label) {
+    for (int i = 0; i < this.warmup; i += 1) {
+      this.iterate(benchmark);
+    }
+
+    long gcCount = this.gcCount();
+    long gcMillis = this.gcMillis();
+    double[] nanosPerOp = new double[this.iterations];
+    long ops = 0;
+    long nanos = 0;
+    long bytes = 0;
+    for (int i = 0; i < this.iterations; i += 1) {
+      long[] result = this.iterate(benchmark);
+      nanosPerOp[i] = (double) result[1] / result[0];
+      ops += result[0];
+      nanos += result[1];
+      bytes += result[2];
+    }
+
+    double mean = 0;
+    for (int i = 0; i < nanosPerOp.length; i += 1) {
+      mean += nanosPerOp[i] / nanosPerOp.length;
+    }
+    double variance = 0;
+    for (int i = 0; i < nanosPerOp.length; i += 1) {
+      variance += (nanosPerOp[i] - mean) * (nanosPerOp[i] - mean) / nanosPerOp.length;
+    }
+    System.out.printf("%-20s %-22s %14.3f %12.3f %14d %12.1f %8d %9d%n", benchmark.name, label,
+        mean / 1e6, Math.sqrt(variance) / 1e6, bytes / ops, bytes / 1e6 / (nanos / 1e9),
+        this.gcCount() - gcCount, this.gcMillis() - gcMillis);
+  }
+
+  // runs the given benchmark for one iteration, and returns the number of runs,
+  // the nanoseconds they took and the bytes they allocated
+  long[] iterate(ABenchmark benchmark) {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long ops = 0;
+    long nanos = 0;
+    long bytes = 0;
+    long iterationStart = System.nanoTime();
+    while (ops == 0 || System.nanoTime() - iterationStart < this.iterationNanos) {
+      benchmark.beforeEach();
+      long allocated = threads.getCurrentThreadAllocatedBytes();
+      long start = System.nanoTime();
+      this.sink = benchmark.run();
+      long end = System.nanoTime();
+      bytes += threads.getCurrentThreadAllocatedBytes() - allocated;
+      nanos += end - start;
+      ops += 1;
+    }
+    return new long[] { ops, nanos, bytes };
+  }
+
+  // returns the number of collections so far, over every collector
+  long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  // returns the milliseconds spent collecting so far, over every collector
+  long gcMillis() {
+    long millis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      millis += Math.max(0, gc.getCollectionTime());
+    }
+    return millis;
+  }
+}